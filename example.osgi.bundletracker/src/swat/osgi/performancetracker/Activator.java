@@ -45,6 +45,7 @@ public class Activator implements BundleActivator {
 	private static final String JAR_EXTENSION = ".jar";
 	private static final String DATA_FOLDER = "framework-metadata";
 	private static final String CSV_SEPARATOR = ",";
+	private static final Object DATA_LOCK = new Object();
 
 
 	//------------------------------------------------------------
@@ -52,6 +53,10 @@ public class Activator implements BundleActivator {
 	//------------------------------------------------------------
 
 	private static Map<String,Long[]> performanceData;
+	private static Map<String,Long[]> refreshData;
+	private static Map<Long,Long> refreshStartData;
+	private static Map<Long,Integer> revisionsData;
+	private static Map<Long,String> bundleKeys;
 	private static Map<Integer,String> bundleStates;
 	private static Map<Integer,String> bundleEventStates;
 	private OSGiBundleTracker bundleTracker;
@@ -71,6 +76,10 @@ public class Activator implements BundleActivator {
 
 		//Initialize maps with bundles data and constants.
 		performanceData = new HashMap<String, Long[]>();
+		refreshData = new HashMap<String, Long[]>();
+		refreshStartData = new HashMap<Long, Long>();
+		revisionsData = new HashMap<Long, Integer>();
+		bundleKeys = new HashMap<Long, String>();
 		initializeBundleStates();
 		initializeBundleEventStates();
 
@@ -85,11 +94,14 @@ public class Activator implements BundleActivator {
 	public void stop(BundleContext context) throws Exception {
 		try {
 			System.out.println("Stopping Performance Tracker");
-			performanceToCSV();
-			System.out.println("Metadata was printed.");
-
 			bundleTracker.close();
 			bundleTracker = null;
+
+			synchronized(DATA_LOCK) {
+				performanceToCSV();
+				refreshPerformanceToCSV();
+			}
+			System.out.println("Metadata was printed.");
 		}
 		catch(Exception e) {
 			e.printStackTrace();
@@ -161,6 +173,30 @@ public class Activator implements BundleActivator {
 		
 		writeFile(DATA_FOLDER + "/performance-info.csv", builder.toString());
 	}
+
+	/**
+	 * Creates a CSV file with the refresh performance of bundles
+	 * that were unresolved or updated and resolved again.
+	 */
+	private void refreshPerformanceToCSV() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("Bundle,Revision,Refreshes,Last Refresh Time,Mean Refresh Time,Max Refresh Time\n");
+
+		Set<Entry<Long, String>> keys = bundleKeys.entrySet();
+		Iterator<Entry<Long, String>> it = keys.iterator();
+		Entry<Long,String> entry = null;
+		while(it.hasNext()) {
+			entry = it.next();
+			Long[] refresh = refreshData.get(entry.getValue());
+			if(refresh != null) {
+				builder.append(entry.getValue() + CSV_SEPARATOR + revisionsData.get(entry.getKey()) + CSV_SEPARATOR
+						+ refresh[0] + CSV_SEPARATOR + refresh[1] + CSV_SEPARATOR + (refresh[2] / refresh[0])
+						+ CSV_SEPARATOR + refresh[3] + '\n');
+			}
+		}
+
+		writeFile(DATA_FOLDER + "/refresh-performance-info.csv", builder.toString());
+	}
 	
 	private void writeFile(String path, String content) {
 		try {
@@ -201,11 +237,19 @@ public class Activator implements BundleActivator {
 		/**
 		 * Adds information to the performance data structure.
 		 * For the Double[]: [InstalledTime, ResolvedTime, ResolvingTimeDelta]
-		 * Sets InstalledTime slot.
+		 * Sets InstalledTime slot. Bundles that are tracked again (e.g.
+		 * when stopping after being active) keep their data.
 		 */
 		public Object addingBundle(Bundle bundle, BundleEvent event) {
 			String key = createBundleKey(bundle);
-			performanceData.put(key, new Long[]{System.nanoTime(), 0L, -1L});
+			synchronized(DATA_LOCK) {
+				if(!performanceData.containsKey(key) || (event != null && event.getType() == BundleEvent.INSTALLED)) {
+					performanceData.put(key, new Long[]{System.nanoTime(), 0L, -1L});
+					revisionsData.put(bundle.getBundleId(), 0);
+					bundleKeys.put(bundle.getBundleId(), key);
+				}
+				trackEvent(bundle, event);
+			}
 			//System.out.println("[ADD] " + key + " - STATE: " + stateAsString(bundle));
 			return bundle;
 		}
@@ -214,16 +258,119 @@ public class Activator implements BundleActivator {
 		 * Sets bundle resolution performance.
 		 */
 		public void modifiedBundle(Bundle bundle, BundleEvent event, Object object) {
+			synchronized(DATA_LOCK) {
+				trackEvent(bundle, event);
+			}
+			//System.out.println("[MODIFIED] " + createBundleKey(bundle) + " - STATE: " + stateAsString(bundle));
+		}
+
+		/**
+		 * Sets bundle resolution and refresh performance.
+		 * Must be called holding DATA_LOCK.
+		 * The refresh time of a bundle goes from its first UNRESOLVED or
+		 * UPDATED event to its next RESOLVED event. For the Long[] of
+		 * refreshes: [Refreshes, LastRefreshTime, TotalRefreshTime, MaxRefreshTime]
+		 */
+		private void trackEvent(Bundle bundle, BundleEvent event) {
+			if(event == null) {
+				return;
+			}
+
+			long id = bundle.getBundleId();
+			switch(event.getType()) {
+			case BundleEvent.RESOLVED:
+				Long start = refreshStartData.remove(id);
+				if(start != null) {
+					updateRefreshData(bundle, System.nanoTime() - start);
+				}
+				else {
+					Long[] time = performanceData.get(createBundleKey(bundle));
+					if(time != null && time[2] < 0) {
+						time[1] = System.nanoTime();
+						time[2] = time[1] - time[0];
+					}
+				}
+				break;
+			case BundleEvent.UNRESOLVED:
+				if(!refreshStartData.containsKey(id)) {
+					refreshStartData.put(id, System.nanoTime());
+				}
+				break;
+			case BundleEvent.UPDATED:
+				updateRevisionData(bundle);
+				break;
+			case BundleEvent.UNINSTALLED:
+				String key = bundleKeys.remove(id);
+				if(key != null) {
+					performanceData.remove(key);
+					refreshData.remove(key);
+				}
+				refreshStartData.remove(id);
+				revisionsData.remove(id);
+				break;
+			}
+		}
+
+		/**
+		 * Registers a new revision of an updated bundle. If the update
+		 * changed the bundle identifier, the data of the previous
+		 * identifier is moved to the new one, unless the previous
+		 * identifier never resolved (then it is resolved from scratch).
+		 */
+		private void updateRevisionData(Bundle bundle) {
+			long id = bundle.getBundleId();
+			Integer revision = revisionsData.get(id);
+			revisionsData.put(id, (revision == null) ? 1 : revision + 1);
+
+			String oldKey = bundleKeys.get(id);
 			String key = createBundleKey(bundle);
+			if(oldKey != null && !oldKey.equals(key)) {
+				boolean resolved = hasResolved(oldKey);
+				Long[] time = performanceData.remove(oldKey);
+				Long[] refresh = refreshData.remove(oldKey);
+				if(resolved) {
+					performanceData.put(key, time);
+					if(refresh != null) {
+						refreshData.put(key, refresh);
+					}
+				}
+				else {
+					refreshStartData.remove(id);
+					performanceData.put(key, new Long[]{System.nanoTime(), 0L, -1L});
+				}
+			}
+			bundleKeys.put(id, key);
+
+			if(hasResolved(key) && !refreshStartData.containsKey(id)) {
+				refreshStartData.put(id, System.nanoTime());
+			}
+		}
+
+		/**
+		 * Returns whether the initial resolving time of a bundle was
+		 * already set. Updates of never resolved bundles are not refreshes.
+		 */
+		private boolean hasResolved(String key) {
+			Long[] time = performanceData.get(key);
+			return time != null && time[2] >= 0;
+		}
 
-			if(event.getType() == BundleEvent.RESOLVED) {
-				//Updates performance data structure.
-				Long[] time = performanceData.get(key);
-				time[1] = System.nanoTime();
-				time[2] = time[1] - time[0];
-				performanceData.put(key, time);
-			}	
-			//System.out.println("[MODIFIED] " + key + " - STATE: " + stateAsString(bundle));
+		/**
+		 * Aggregates a refresh time of a bundle, so memory does not grow
+		 * with the number of refreshes.
+		 */
+		private void updateRefreshData(Bundle bundle, long delta) {
+			String key = createBundleKey(bundle);
+			Long[] refresh = refreshData.get(key);
+			if(refresh == null) {
+				refreshData.put(key, new Long[]{1L, delta, delta, delta});
+			}
+			else {
+				refresh[0] += 1;
+				refresh[1] = delta;
+				refresh[2] += delta;
+				refresh[3] = Math.max(refresh[3], delta);
+			}
 		}
 	}
 }
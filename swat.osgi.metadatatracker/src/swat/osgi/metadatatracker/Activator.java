@@ -22,7 +22,10 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -35,6 +38,7 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
+import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.framework.wiring.BundleWire;
 import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.util.tracker.BundleTracker;
@@ -50,6 +54,7 @@ public class Activator implements BundleActivator {
 	private static final String JAR_EXTENSION = ".jar";
 	private static final String DATA_FOLDER = "framework-metadata";
 	private static final String CSV_SEPARATOR = ",";
+	private static final Object DATA_LOCK = new Object();
 
 
 	//------------------------------------------------------------
@@ -59,7 +64,13 @@ public class Activator implements BundleActivator {
 	private static Map<String,Integer> resolvedData;
 	private static Map<String,Integer> classpathData;
 	private static Map<String,Integer> classpathDependenciesData;
-	private static List<String[]> wiringsData;
+	private static Map<String,List<String[]>> wiringsData;
+	private static Map<Long,String> bundleKeys;
+	private static Map<Long,Integer> revisionsData;
+	private static Map<Long,Set<Long>> providersData;
+	private static Map<Long,Set<Long>> dependentsData;
+	private static Set<Long> staleBundles;
+	private static int resolvedCount;
 	private static Map<Integer,String> bundleStates;
 	private static Map<Integer,String> bundleEventStates;
 	private OSGiBundleTracker bundleTracker;
@@ -93,16 +104,21 @@ public class Activator implements BundleActivator {
 	public void stop(BundleContext context) throws Exception {
 		try {
 			System.out.println("Stopping Metadata Tracker");
-			bundleStatesToCSV();
-			classpathToCSV();
-			classpathDependenciesToCSV();
-			wiringsToCSV();
-			resolvedBundlesToCSV();
-
-			System.out.println("Metadata was printed.");
-
+			Bundle[] bundles = bundleTracker.getBundles();
 			bundleTracker.close();
 			bundleTracker = null;
+
+			synchronized(DATA_LOCK) {
+				updateStaleBundles(context);
+				bundleStatesToCSV(bundles);
+				classpathToCSV();
+				classpathDependenciesToCSV();
+				wiringsToCSV();
+				resolvedBundlesToCSV();
+				revisionsToCSV();
+			}
+
+			System.out.println("Metadata was printed.");
 		}
 		catch(Exception e) {
 			e.printStackTrace();
@@ -117,7 +133,13 @@ public class Activator implements BundleActivator {
 		classpathData = new HashMap<String,Integer>();
 		classpathDependenciesData = new HashMap<String,Integer>();
 		resolvedData = new HashMap<String,Integer>();
-		wiringsData = new ArrayList<String[]>();
+		wiringsData = new LinkedHashMap<String,List<String[]>>();
+		bundleKeys = new HashMap<Long,String>();
+		revisionsData = new HashMap<Long,Integer>();
+		providersData = new HashMap<Long,Set<Long>>();
+		dependentsData = new HashMap<Long,Set<Long>>();
+		staleBundles = new HashSet<Long>();
+		resolvedCount = 0;
 	}
 
 	/**
@@ -174,23 +196,30 @@ public class Activator implements BundleActivator {
 	 *   classpath sizes.
 	 * - wiringsData: considers both import-package and require-bundle
 	 *   dependencies.
+	 * Previous results of the bundle are replaced, so re-resolving a
+	 * bundle does not duplicate its wirings. The bundle remains stale
+	 * until its new results are computed.
 	 */
 	protected void updateClasspathWiringsData(Bundle bundle) {
 		try {
 			String key = createBundleKey(bundle);
 			BundleWiring wiring = bundle.adapt(BundleWiring.class);
+			List<String[]> wirings = new ArrayList<String[]>();
+			List<Long> providers = new ArrayList<Long>();
 
 			// Logging required packages
 			for (BundleWire wire : wiring.getRequiredWires("osgi.wiring.package")) {
 				String pkg = (String) wire.getCapability().getAttributes().get("osgi.wiring.package");
-				Bundle b = wire.getProviderWiring().getBundle();
-				wiringsData.add(new String[] { key, "osgi.wiring.package", createBundleKey(b), pkg});
+				BundleRevision b = wire.getProviderWiring().getRevision();
+				wirings.add(new String[] { key, "osgi.wiring.package", createRevisionKey(b), pkg});
+				providers.add(b.getBundle().getBundleId());
 			}
 
 			// Logging required bundles
 			for (BundleWire wire : wiring.getRequiredWires("osgi.wiring.bundle")) {
-				Bundle b = wire.getProviderWiring().getBundle();
-				wiringsData.add(new String[] { key, "osgi.wiring.bundle", createBundleKey(b), ""});
+				BundleRevision b = wire.getProviderWiring().getRevision();
+				wirings.add(new String[] { key, "osgi.wiring.bundle", createRevisionKey(b), ""});
+				providers.add(b.getBundle().getBundleId());
 			}
 
 			// (incudes local classpath + JARs + fragments + dependencies)
@@ -201,12 +230,163 @@ public class Activator implements BundleActivator {
 			Collection<String> localRes = wiring.listResources("/", "*.class",
 					BundleWiring.LISTRESOURCES_LOCAL | BundleWiring.LISTRESOURCES_RECURSE);
 
+			removeClasspathWiringsData(bundle.getBundleId());
+			bundleKeys.put(bundle.getBundleId(), key);
+			for(Long provider : providers) {
+				addDependency(bundle.getBundleId(), provider);
+			}
+			wiringsData.put(key, wirings);
 			classpathData.put(key, localRes.size());
 			classpathDependenciesData.put(key, recursiveRes.size());
+			staleBundles.remove(bundle.getBundleId());
 		} catch (Exception e) {
 			System.out.println(e.getMessage());
 		}
 	}
+
+	/**
+	 * Registers a wiring between a requirer and a provider bundle, so
+	 * the requirer can be invalidated when the provider is refreshed.
+	 */
+	private void addDependency(long requirer, long provider) {
+		if(requirer == provider) {
+			return;
+		}
+
+		Set<Long> providers = providersData.get(requirer);
+		if(providers == null) {
+			providers = new HashSet<Long>();
+			providersData.put(requirer, providers);
+		}
+		providers.add(provider);
+
+		Set<Long> dependents = dependentsData.get(provider);
+		if(dependents == null) {
+			dependents = new HashSet<Long>();
+			dependentsData.put(provider, dependents);
+		}
+		dependents.add(requirer);
+	}
+
+	/**
+	 * Removes the classpath and wirings results of a bundle, together
+	 * with the edges it contributed to the dependency graph.
+	 */
+	private void removeClasspathWiringsData(long bundleId) {
+		String key = bundleKeys.get(bundleId);
+		if(key != null) {
+			classpathData.remove(key);
+			classpathDependenciesData.remove(key);
+			wiringsData.remove(key);
+		}
+
+		Set<Long> providers = providersData.remove(bundleId);
+		if(providers != null) {
+			for(Long provider : providers) {
+				Set<Long> dependents = dependentsData.get(provider);
+				if(dependents != null) {
+					dependents.remove(bundleId);
+					if(dependents.isEmpty()) {
+						dependentsData.remove(provider);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Invalidates the classpath and wirings results of a refreshed
+	 * bundle and of its transitive dependents. Invalidated bundles are
+	 * recomputed when they are resolved again (or before printing the
+	 * metadata, if they remain resolved).
+	 */
+	protected void invalidateBundleData(Bundle bundle) {
+		Set<Long> invalidated = new HashSet<Long>();
+		LinkedList<Long> pending = new LinkedList<Long>();
+		pending.add(bundle.getBundleId());
+
+		while(!pending.isEmpty()) {
+			Long id = pending.removeFirst();
+			if(invalidated.add(id)) {
+				Set<Long> dependents = dependentsData.get(id);
+				if(dependents != null) {
+					pending.addAll(dependents);
+				}
+			}
+		}
+
+		for(Long id : invalidated) {
+			removeClasspathWiringsData(id);
+			if(bundleKeys.containsKey(id)) {
+				staleBundles.add(id);
+			}
+		}
+	}
+
+	/**
+	 * Removes every result of an uninstalled bundle, so long-running
+	 * frameworks do not accumulate data of bundles that are gone.
+	 */
+	protected void removeBundleData(Bundle bundle) {
+		long id = bundle.getBundleId();
+		invalidateBundleData(bundle);
+
+		String key = bundleKeys.remove(id);
+		if(key != null) {
+			resolvedData.remove(key);
+		}
+		revisionsData.remove(id);
+		staleBundles.remove(id);
+	}
+
+	/**
+	 * Registers a new revision of an updated bundle. The results of
+	 * the previous revision are invalidated, and its resolved order is
+	 * dropped if the update changed the bundle identifier.
+	 */
+	protected void updateRevisionData(Bundle bundle) {
+		long id = bundle.getBundleId();
+		Integer revision = revisionsData.get(id);
+		revisionsData.put(id, (revision == null) ? 1 : revision + 1);
+		invalidateBundleData(bundle);
+
+		String oldKey = bundleKeys.get(id);
+		String key = createBundleKey(bundle);
+		if(oldKey != null && !oldKey.equals(key)) {
+			resolvedData.remove(oldKey);
+		}
+		bundleKeys.put(id, key);
+	}
+
+	/**
+	 * Sets the resolved order of a bundle. Only the first resolution
+	 * of a bundle identifier is considered.
+	 */
+	protected void updateResolvedData(Bundle bundle) {
+		String key = createBundleKey(bundle);
+		bundleKeys.put(bundle.getBundleId(), key);
+		if(!revisionsData.containsKey(bundle.getBundleId())) {
+			revisionsData.put(bundle.getBundleId(), 0);
+		}
+		if(!resolvedData.containsKey(key)) {
+			resolvedData.put(key, resolvedCount++);
+		}
+	}
+
+	/**
+	 * Recomputes the classpath and wirings results of invalidated
+	 * bundles that are still resolved, and forgets the rest.
+	 */
+	private void updateStaleBundles(BundleContext context) {
+		int resolvedStates = Bundle.RESOLVED | Bundle.STARTING | Bundle.ACTIVE | Bundle.STOPPING;
+		for(Long id : new ArrayList<Long>(staleBundles)) {
+			Bundle bundle = context.getBundle(id);
+			if(bundle != null && (bundle.getState() & resolvedStates) != 0) {
+				updateClasspathWiringsData(bundle);
+			}
+		}
+		staleBundles.clear();
+	}
 	
 	/**
 	 * Gets the classpath size of a bundle given it classloader.
@@ -299,12 +479,14 @@ public class Activator implements BundleActivator {
 		StringBuilder builder = new StringBuilder();
 		builder.append("Bundle,Dependency Type,Wired Bundle,Package\n");
 
-		for(String[] values : wiringsData) {
-			String line = "";
-			for(int i = 0; i < values.length; i++) {
-				line += (i == values.length - 1) ? values[i] : values[i] + CSV_SEPARATOR;
+		for(List<String[]> wirings : wiringsData.values()) {
+			for(String[] values : wirings) {
+				String line = "";
+				for(int i = 0; i < values.length; i++) {
+					line += (i == values.length - 1) ? values[i] : values[i] + CSV_SEPARATOR;
+				}
+				builder.append(line + '\n');
 			}
-			builder.append(line + '\n');
 		}
 
 		writeFile(DATA_FOLDER + "/wirings-info.csv", builder.toString());
@@ -330,16 +512,40 @@ public class Activator implements BundleActivator {
 		writeFile(DATA_FOLDER + "/resolved-bundles-info.csv", builder.toString());
 	}
 
+	/**
+	 * Creates a CSV file with the current revision of each bundle
+	 * (0 for the installed revision, increased on every update).
+	 */
+	private void revisionsToCSV() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("Bundle,Revision\n");
+
+		Set<Entry<Long,Integer>> revisions = revisionsData.entrySet();
+		Iterator<Entry<Long,Integer>> it = revisions.iterator();
+		Entry<Long,Integer> entry = null;
+
+		while(it.hasNext()) {
+			entry = it.next();
+			String key = bundleKeys.get(entry.getKey());
+			if(key != null) {
+				builder.append(key + CSV_SEPARATOR + entry.getValue() + '\n');
+			}
+		}
+
+		writeFile(DATA_FOLDER + "/bundle-revisions-info.csv", builder.toString());
+	}
+
 	/**
 	 * Creates a CSV file with the final bundles state. 
 	 */
-	private void bundleStatesToCSV() {
+	private void bundleStatesToCSV(Bundle[] bundles) {
 		StringBuilder builder = new StringBuilder();
 		builder.append("Bundle,State\n");
 
-		Bundle[] bundles = bundleTracker.getBundles();
-		for(Bundle bundle : bundles) {
-			builder.append(createBundleKey(bundle) + CSV_SEPARATOR + stateAsString(bundle) + '\n');
+		if(bundles != null) {
+			for(Bundle bundle : bundles) {
+				builder.append(createBundleKey(bundle) + CSV_SEPARATOR + stateAsString(bundle) + '\n');
+			}
 		}
 
 		writeFile(DATA_FOLDER + "/bundles-info.csv", builder.toString());
@@ -394,6 +600,15 @@ public class Activator implements BundleActivator {
 		return bundle.getSymbolicName() + "_" + bundle.getVersion();
 	}
 
+	/**
+	 * Creates a bundle revision identifier: symbolicName_version
+	 * Unlike the bundle, the revision keeps the version it was wired
+	 * with after the bundle is updated.
+	 */
+	protected String createRevisionKey(BundleRevision revision) {
+		return revision.getSymbolicName() + "_" + revision.getVersion();
+	}
+
 
 	//------------------------------------------------------------
 	// Nested Class
@@ -414,24 +629,49 @@ public class Activator implements BundleActivator {
 		 */
 		public Object addingBundle(Bundle bundle, BundleEvent event) {
 			String key = createBundleKey(bundle);
+			trackEvent(bundle, event);
 			System.out.println("[ADD] " + key + " - STATE: " + stateAsString(bundle));
 			return bundle;
 		}
 
+		/**
+		 * Tracks the bundle event.
+		 */
+		public void modifiedBundle(Bundle bundle, BundleEvent event, Object object) {
+			String key = createBundleKey(bundle);
+			trackEvent(bundle, event);
+			System.out.println("[MODIFIED] " + key + " - STATE: " + stateAsString(bundle));
+		}
+
 		/**
 		 * Sets bundle resolved order.
 		 * Sets bundle classpath size (in a Resolved state a classloader is 
 		 * assigned to a bundle).
+		 * Updated and unresolved bundles (e.g. after a refresh) are
+		 * invalidated together with their transitive dependents.
 		 */
-		public void modifiedBundle(Bundle bundle, BundleEvent event, Object object) {
-			String key = createBundleKey(bundle);
+		private void trackEvent(Bundle bundle, BundleEvent event) {
+			if(event == null) {
+				return;
+			}
 
-			if(event.getType() == BundleEvent.RESOLVED) {
-				//Update number of resolved bundles in data structure.
-				resolvedData.put(key, resolvedData.size());
-				updateClasspathWiringsData(bundle);
-			}	
-			System.out.println("[MODIFIED] " + key + " - STATE: " + stateAsString(bundle));
+			synchronized(DATA_LOCK) {
+				switch(event.getType()) {
+				case BundleEvent.RESOLVED:
+					updateResolvedData(bundle);
+					updateClasspathWiringsData(bundle);
+					break;
+				case BundleEvent.UNRESOLVED:
+					invalidateBundleData(bundle);
+					break;
+				case BundleEvent.UPDATED:
+					updateRevisionData(bundle);
+					break;
+				case BundleEvent.UNINSTALLED:
+					removeBundleData(bundle);
+					break;
+				}
+			}
 		}
 	}
 